@@ -0,0 +1,469 @@
+/*
+ * JR2RmlTestSuite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JR2RmlTestSuite is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JR2RmlTestSuite. If not, see http://www.gnu.org/licenses/.
+ *
+ * Contributors:
+ *     Josef Hardi <josef.hardi@gmail.com> - initial API and implementation
+ */
+package io.github.johardi.r2rml.testsuite;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ContextStatementImpl;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.util.ModelUtil;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+/**
+ * A memory-efficient graph representation used for comparing the actual and
+ * the expected test output. RDF terms are interned into a {@link Dictionary}
+ * shared by both graphs, and each statement is stored as a quad of term
+ * identifiers packed into two <code>long</code> values. Once sorted, two
+ * graphs can be compared with a single linear scan.
+ * <p>
+ * No Sesame objects are retained: a statement costs 16 bytes, and a distinct
+ * term costs its UTF-8 lexical form plus about 20 bytes of table entries. A
+ * statement held as Sesame objects in a set costs roughly 100 bytes before
+ * counting its terms, and every term is a separate object with its own
+ * string. The actual graph only benefits fully when the processor streams it
+ * through {@link R2RmlBaseTest#handleActualGraph(org.openrdf.rio.RDFHandler)};
+ * otherwise it is held as a set of statements until it has been encoded.
+ * <p>
+ * Statements that mention blank nodes cannot be compared by identifier since
+ * blank node labels are local to each graph. They are stored in the same
+ * encoded form but kept aside, and are decoded only to be checked for
+ * isomorphism once all other statements are known to be equal.
+ * <p>
+ * Contexts are kept for reporting but, as with Sesame statement equality,
+ * they are not taken into account when comparing statements.
+ */
+class CompactGraph extends RDFHandlerBase
+{
+   /**
+    * Maps RDF terms to dense integer identifiers and back. Each term is kept
+    * as its kind, its UTF-8 lexical form in a shared byte pool and the
+    * identifier of its datatype or language tag. Lookups go through an
+    * open-addressing table of identifiers. The identifier <code>0</code> is
+    * reserved for the default (null) context.
+    */
+   static class Dictionary
+   {
+      private static final byte IRI = 1;
+      private static final byte BNODE = 2;
+      private static final byte PLAIN_LITERAL = 3;
+      private static final byte TYPED_LITERAL = 4;
+      private static final byte LANG_LITERAL = 5;
+      private static final byte LANGUAGE = 6;
+
+      private static final Charset UTF8 = Charset.forName("UTF-8");
+      private static final int INITIAL_CAPACITY = 1024;
+
+      private int mCount = 1;
+      private byte[] mKinds = new byte[INITIAL_CAPACITY];
+      private int[] mQualifiers = new int[INITIAL_CAPACITY];
+      private int[] mHashes = new int[INITIAL_CAPACITY];
+      private int[] mOffsets = new int[INITIAL_CAPACITY + 1];
+
+      private byte[] mLabels = new byte[INITIAL_CAPACITY * 16];
+
+      private int[] mTable = new int[INITIAL_CAPACITY * 2]; // 0 marks an empty slot
+
+      private final ValueFactory mValueFactory = ValueFactoryImpl.getInstance();
+
+      int encode(Value value)
+      {
+         if (value == null) {
+            return 0;
+         }
+         if (value instanceof URI) {
+            return intern(IRI, value.stringValue(), 0);
+         }
+         if (value instanceof BNode) {
+            return intern(BNODE, value.stringValue(), 0);
+         }
+         Literal literal = (Literal) value;
+         if (literal.getLanguage() != null) {
+            int language = intern(LANGUAGE, literal.getLanguage(), 0);
+            return intern(LANG_LITERAL, literal.getLabel(), language);
+         }
+         if (literal.getDatatype() != null) {
+            int datatype = encode(literal.getDatatype());
+            return intern(TYPED_LITERAL, literal.getLabel(), datatype);
+         }
+         return intern(PLAIN_LITERAL, literal.getLabel(), 0);
+      }
+
+      Value decode(int id)
+      {
+         if (id == 0) {
+            return null;
+         }
+         String label = new String(mLabels, mOffsets[id], mOffsets[id + 1] - mOffsets[id], UTF8);
+         switch (mKinds[id]) {
+            case IRI:
+               return mValueFactory.createURI(label);
+            case BNODE:
+               return mValueFactory.createBNode(label);
+            case TYPED_LITERAL:
+               return mValueFactory.createLiteral(label, (URI) decode(mQualifiers[id]));
+            case LANG_LITERAL:
+               return mValueFactory.createLiteral(label, decode(mQualifiers[id]).stringValue());
+            default:
+               return mValueFactory.createLiteral(label);
+         }
+      }
+
+      private int intern(byte kind, String label, int qualifier)
+      {
+         byte[] bytes = label.getBytes(UTF8);
+         int hash = hash(kind, bytes, qualifier);
+         int mask = mTable.length - 1;
+         int slot = hash & mask;
+         while (mTable[slot] != 0) {
+            int id = mTable[slot];
+            if (mHashes[id] == hash && matches(id, kind, bytes, qualifier)) {
+               return id;
+            }
+            slot = (slot + 1) & mask;
+         }
+         int id = add(kind, bytes, qualifier, hash);
+         mTable[slot] = id;
+         if (mCount * 2 > mTable.length) {
+            rehash();
+         }
+         return id;
+      }
+
+      private int add(byte kind, byte[] bytes, int qualifier, int hash)
+      {
+         int id = mCount++;
+         if (mCount == mKinds.length) {
+            int capacity = mKinds.length * 2;
+            mKinds = Arrays.copyOf(mKinds, capacity);
+            mQualifiers = Arrays.copyOf(mQualifiers, capacity);
+            mHashes = Arrays.copyOf(mHashes, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+         }
+         int offset = mOffsets[id];
+         if (offset + bytes.length > mLabels.length) {
+            mLabels = Arrays.copyOf(mLabels, Math.max(mLabels.length * 2, offset + bytes.length));
+         }
+         System.arraycopy(bytes, 0, mLabels, offset, bytes.length);
+         mKinds[id] = kind;
+         mQualifiers[id] = qualifier;
+         mHashes[id] = hash;
+         mOffsets[id + 1] = offset + bytes.length;
+         return id;
+      }
+
+      private boolean matches(int id, byte kind, byte[] bytes, int qualifier)
+      {
+         if (mKinds[id] != kind || mQualifiers[id] != qualifier) {
+            return false;
+         }
+         int offset = mOffsets[id];
+         if (mOffsets[id + 1] - offset != bytes.length) {
+            return false;
+         }
+         for (int i = 0; i < bytes.length; i++) {
+            if (mLabels[offset + i] != bytes[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private void rehash()
+      {
+         int[] table = new int[mTable.length * 2];
+         int mask = table.length - 1;
+         for (int id = 1; id < mCount; id++) {
+            int slot = mHashes[id] & mask;
+            while (table[slot] != 0) {
+               slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+         }
+         mTable = table;
+      }
+
+      private static int hash(byte kind, byte[] bytes, int qualifier)
+      {
+         int h = (Arrays.hashCode(bytes) * 31 + kind) * 31 + qualifier;
+         return h ^ (h >>> 16);
+      }
+   }
+
+   private final Dictionary mDictionary;
+
+   private final QuadList mGroundQuads = new QuadList();
+   private final QuadList mBNodeQuads = new QuadList();
+
+   CompactGraph(Dictionary dictionary)
+   {
+      mDictionary = dictionary;
+   }
+
+   @Override
+   public void handleStatement(Statement st)
+   {
+      add(st);
+   }
+
+   void add(Statement st)
+   {
+      int s = mDictionary.encode(st.getSubject());
+      int p = mDictionary.encode(st.getPredicate());
+      int o = mDictionary.encode(st.getObject());
+      int c = mDictionary.encode(st.getContext());
+      if (st.getSubject() instanceof BNode || st.getObject() instanceof BNode
+            || st.getContext() instanceof BNode) {
+         mBNodeQuads.add(s, p, o, c);
+      }
+      else {
+         mGroundQuads.add(s, p, o, c);
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if both graphs contain the same ground
+    * statements and isomorphic blank node statements. Both graphs must share
+    * the same dictionary.
+    */
+   boolean isEqualTo(CompactGraph other)
+   {
+      if (mDictionary != other.mDictionary) {
+         throw new IllegalArgumentException("Graphs must share the same dictionary");
+      }
+      if (!mGroundQuads.isEqualTo(other.mGroundQuads)) {
+         return false;
+      }
+      if (mBNodeQuads.size() != other.mBNodeQuads.size()) {
+         return false;
+      }
+      return ModelUtil.equals(decode(mBNodeQuads), decode(other.mBNodeQuads));
+   }
+
+   /**
+    * Returns the statements of this graph decoded back into Sesame objects,
+    * ground statements first in identifier order.
+    */
+   List<Statement> toStatements()
+   {
+      List<Statement> toReturn = decode(mGroundQuads);
+      toReturn.addAll(decode(mBNodeQuads));
+      return toReturn;
+   }
+
+   /*
+    * Private utility methods
+    */
+
+   private List<Statement> decode(QuadList quads)
+   {
+      quads.sort();
+      List<Statement> toReturn = new ArrayList<Statement>(quads.size());
+      for (int i = 0; i < quads.size(); i++) {
+         Resource subject = (Resource) mDictionary.decode(quads.subject(i));
+         URI predicate = (URI) mDictionary.decode(quads.predicate(i));
+         Value object = mDictionary.decode(quads.object(i));
+         Resource context = (Resource) mDictionary.decode(quads.context(i));
+         if (context == null) {
+            toReturn.add(new StatementImpl(subject, predicate, object));
+         }
+         else {
+            toReturn.add(new ContextStatementImpl(subject, predicate, object, context));
+         }
+      }
+      return toReturn;
+   }
+
+   /**
+    * A growable array of quads, each packed into two <code>long</code>
+    * values: subject and predicate in the first, object and context in the
+    * second. Sorting also removes statements that differ only in context.
+    */
+   private static class QuadList
+   {
+      private static final int INITIAL_CAPACITY = 64;
+
+      private long[] mQuads = new long[INITIAL_CAPACITY * 2];
+      private int mSize = 0;
+      private boolean bSorted = true;
+
+      void add(int s, int p, int o, int c)
+      {
+         if (mSize * 2 == mQuads.length) {
+            mQuads = Arrays.copyOf(mQuads, mQuads.length * 2);
+         }
+         mQuads[mSize * 2] = pack(s, p);
+         mQuads[mSize * 2 + 1] = pack(o, c);
+         mSize++;
+         bSorted = false;
+      }
+
+      int size()
+      {
+         sort();
+         return mSize;
+      }
+
+      int subject(int i)
+      {
+         return high(mQuads[i * 2]);
+      }
+
+      int predicate(int i)
+      {
+         return low(mQuads[i * 2]);
+      }
+
+      int object(int i)
+      {
+         return high(mQuads[i * 2 + 1]);
+      }
+
+      int context(int i)
+      {
+         return low(mQuads[i * 2 + 1]);
+      }
+
+      boolean isEqualTo(QuadList other)
+      {
+         sort();
+         other.sort();
+         if (mSize != other.mSize) {
+            return false;
+         }
+         for (int i = 0; i < mSize; i++) {
+            if (compareTriple(mQuads, i, other.mQuads, i) != 0) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      void sort()
+      {
+         if (bSorted) {
+            return;
+         }
+         quickSort(0, mSize - 1);
+
+         // Remove duplicates to keep the set semantics
+         int last = 0;
+         for (int i = 1; i < mSize; i++) {
+            if (compareTriple(mQuads, i, mQuads, last) != 0) {
+               last++;
+               mQuads[last * 2] = mQuads[i * 2];
+               mQuads[last * 2 + 1] = mQuads[i * 2 + 1];
+            }
+         }
+         mSize = (mSize == 0) ? 0 : last + 1;
+         bSorted = true;
+      }
+
+      /*
+       * Three-way quicksort, so that runs of equal quads (e.g., a processor
+       * emitting the same triple many times) are settled in a single pass.
+       */
+      private void quickSort(int lo, int hi)
+      {
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long pivotFirst = mQuads[mid * 2];
+            long pivotSecond = mQuads[mid * 2 + 1];
+
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+               int cmp = compare(i, pivotFirst, pivotSecond);
+               if (cmp < 0) {
+                  swap(lt++, i++);
+               }
+               else if (cmp > 0) {
+                  swap(i, gt--);
+               }
+               else {
+                  i++;
+               }
+            }
+            // Recurse into the smaller side to bound the stack depth
+            if (lt - lo < hi - gt) {
+               quickSort(lo, lt - 1);
+               lo = gt + 1;
+            }
+            else {
+               quickSort(gt + 1, hi);
+               hi = lt - 1;
+            }
+         }
+      }
+
+      private int compare(int i, long first, long second)
+      {
+         // Identifiers are non-negative, so the packed values compare as signed longs
+         int cmp = Long.compare(mQuads[i * 2], first);
+         if (cmp != 0) {
+            return cmp;
+         }
+         return Long.compare(mQuads[i * 2 + 1], second);
+      }
+
+      private void swap(int i, int j)
+      {
+         long first = mQuads[i * 2];
+         long second = mQuads[i * 2 + 1];
+         mQuads[i * 2] = mQuads[j * 2];
+         mQuads[i * 2 + 1] = mQuads[j * 2 + 1];
+         mQuads[j * 2] = first;
+         mQuads[j * 2 + 1] = second;
+      }
+
+      private static int compareTriple(long[] quads1, int i, long[] quads2, int j)
+      {
+         int cmp = Long.compare(quads1[i * 2], quads2[j * 2]);
+         if (cmp != 0) {
+            return cmp;
+         }
+         return Integer.compare(high(quads1[i * 2 + 1]), high(quads2[j * 2 + 1]));
+      }
+
+      private static long pack(int high, int low)
+      {
+         return ((long) high << 32) | (low & 0xFFFFFFFFL);
+      }
+
+      private static int high(long value)
+      {
+         return (int) (value >>> 32);
+      }
+
+      private static int low(long value)
+      {
+         return (int) value;
+      }
+   }
+}
@@ -0,0 +1,565 @@
+/*
+ * JR2RmlTestSuite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JR2RmlTestSuite is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JR2RmlTestSuite. If not, see http://www.gnu.org/licenses/.
+ *
+ * Contributors:
+ *     Josef Hardi <josef.hardi@gmail.com> - initial API and implementation
+ */
+package io.github.johardi.r2rml.testsuite;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A JDBC driver that delegates to another (typically local) database and
+ * injects artificial network cost on top of it. It makes it possible to see
+ * how a processor behaves when the database is a few milliseconds away,
+ * without leaving the local machine.
+ * <p>
+ * The driver accepts URLs of the form
+ *
+ * <pre>
+ * jdbc:latency:[option=value[,option=value]*:]&lt;delegate JDBC URL&gt;
+ * </pre>
+ *
+ * with the following options:
+ * <ul>
+ * <li><code>driver</code> - class name of the delegate JDBC driver to load.</li>
+ * <li><code>latency</code> - round-trip time in milliseconds, charged for each
+ * connect, statement execution, commit/rollback and metadata query.</li>
+ * <li><code>rowDelay</code> - delay in microseconds for every fetched row.</li>
+ * <li><code>fetchSize</code> - rows per fetch round-trip when the client does
+ * not call <code>setFetchSize()</code>. Zero (default) means the whole result
+ * arrives with the query response.</li>
+ * <li><code>bandwidth</code> - link capacity in kilobytes per second, charged
+ * for the SQL text sent (when executed directly, prepared or batched), the
+ * bound parameters of each execution or batch entry and the column values
+ * read. The capacity is shared by all connections to the same delegate URL,
+ * so opening more connections does not add bandwidth. Zero (default) means
+ * unlimited.</li>
+ * </ul>
+ * Option values must not be negative. The returned JDBC objects compare
+ * equal by identity, and <code>unwrap()</code> to a JDBC interface returns
+ * an object that is still subject to the injected cost.
+ * For example, a test case can select the driver by returning
+ *
+ * <pre>
+ * getJdbcDriver() = "io.github.johardi.r2rml.testsuite.LatencyDriver"
+ * getJdbcUrl()    = "jdbc:latency:driver=org.h2.Driver,latency=5,rowDelay=20:jdbc:h2:mem:test"
+ * </pre>
+ */
+public class LatencyDriver implements Driver
+{
+   public static final String URL_PREFIX = "jdbc:latency:";
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private static final Set<String> ROUND_TRIP_METHODS = new HashSet<String>(Arrays.asList(
+         "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch",
+         "executeLargeBatch", "commit", "rollback", "setAutoCommit", "setSavepoint",
+         "releaseSavepoint"));
+
+   private static final Set<String> NON_DATA_GETTERS = new HashSet<String>(Arrays.asList(
+         "getMetaData", "getStatement", "getFetchSize", "getFetchDirection", "getType",
+         "getConcurrency", "getHoldability", "getRow", "getWarnings", "getCursorName"));
+
+   private static final Map<String, Link> LINKS = new HashMap<String, Link>();
+
+   static {
+      try {
+         DriverManager.registerDriver(new LatencyDriver());
+      }
+      catch (SQLException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   @Override
+   public Connection connect(String url, Properties info) throws SQLException
+   {
+      if (!acceptsURL(url)) {
+         return null;
+      }
+      Settings settings = Settings.parse(url);
+      Channel channel = new Channel(settings, getLink(settings));
+      channel.roundTrip();
+      Connection conn = DriverManager.getConnection(settings.mDelegateUrl, info);
+      return wrap(Connection.class, conn, channel, 0);
+   }
+
+   @Override
+   public boolean acceptsURL(String url) throws SQLException
+   {
+      return url != null && url.startsWith(URL_PREFIX);
+   }
+
+   @Override
+   public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException
+   {
+      String delegateUrl = Settings.parse(url).mDelegateUrl;
+      return DriverManager.getDriver(delegateUrl).getPropertyInfo(delegateUrl, info);
+   }
+
+   @Override
+   public int getMajorVersion()
+   {
+      return 1;
+   }
+
+   @Override
+   public int getMinorVersion()
+   {
+      return 0;
+   }
+
+   @Override
+   public boolean jdbcCompliant()
+   {
+      return false;
+   }
+
+   @Override
+   public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+   {
+      throw new SQLFeatureNotSupportedException();
+   }
+
+   /*
+    * Private utility methods
+    */
+
+   private static Link getLink(Settings settings)
+   {
+      if (settings.mBytesPerSecond <= 0) {
+         return null;
+      }
+      String key = settings.mBytesPerSecond + "@" + settings.mDelegateUrl;
+      synchronized (LINKS) {
+         Link link = LINKS.get(key);
+         if (link == null) {
+            link = new Link(settings.mBytesPerSecond);
+            LINKS.put(key, link);
+         }
+         return link;
+      }
+   }
+
+   private static <T> T wrap(Class<T> type, T target, Channel channel, int fetchSize)
+   {
+      InvocationHandler handler;
+      if (ResultSet.class.equals(type)) {
+         handler = new ResultSetHandler((ResultSet) target, channel, fetchSize);
+      }
+      else if (Statement.class.isAssignableFrom(type)) {
+         handler = new StatementHandler(target, channel, fetchSize);
+      }
+      else {
+         handler = new Handler(target, channel, fetchSize);
+      }
+      return type.cast(Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(),
+            new Class<?>[] { type }, handler));
+   }
+
+   private static boolean isWrappable(Class<?> type)
+   {
+      return Connection.class.equals(type)
+            || Statement.class.equals(type)
+            || PreparedStatement.class.equals(type)
+            || CallableStatement.class.equals(type)
+            || DatabaseMetaData.class.equals(type)
+            || ResultSet.class.equals(type);
+   }
+
+   private static long sizeOf(Object value)
+   {
+      if (value == null) {
+         return 1;
+      }
+      if (value instanceof byte[]) {
+         return ((byte[]) value).length;
+      }
+      if (value instanceof Number || value instanceof Boolean) {
+         return 8;
+      }
+      return value.toString().getBytes(UTF8).length;
+   }
+
+   /**
+    * Network cost parameters parsed from the driver URL.
+    */
+   private static class Settings
+   {
+      long mRoundTripNanos;
+      long mRowNanos;
+      int mFetchSize;
+      long mBytesPerSecond;
+      String mDelegateUrl;
+
+      static Settings parse(String url) throws SQLException
+      {
+         String rest = url.substring(URL_PREFIX.length());
+         int delegateIdx = rest.indexOf("jdbc:");
+         if (delegateIdx < 0) {
+            throw new SQLException("Missing delegate JDBC URL in '" + url + "'");
+         }
+         Settings settings = new Settings();
+         settings.mDelegateUrl = rest.substring(delegateIdx);
+
+         String options = rest.substring(0, delegateIdx);
+         if (options.endsWith(":")) {
+            options = options.substring(0, options.length() - 1);
+         }
+         for (String option : options.split(",")) {
+            if (option.isEmpty()) {
+               continue;
+            }
+            int eqIdx = option.indexOf('=');
+            if (eqIdx < 0) {
+               throw new SQLException("Malformed option '" + option + "' in '" + url + "'");
+            }
+            String key = option.substring(0, eqIdx).trim();
+            String value = option.substring(eqIdx + 1).trim();
+            if (value.startsWith("-")) {
+               throw new SQLException("Negative value for option '" + key + "' in '" + url + "'");
+            }
+            try {
+               if ("driver".equals(key)) {
+                  Class.forName(value);
+               }
+               else if ("latency".equals(key)) {
+                  settings.mRoundTripNanos = (long) (Double.parseDouble(value) * 1000000L);
+               }
+               else if ("rowDelay".equals(key)) {
+                  settings.mRowNanos = (long) (Double.parseDouble(value) * 1000L);
+               }
+               else if ("fetchSize".equals(key)) {
+                  settings.mFetchSize = Integer.parseInt(value);
+               }
+               else if ("bandwidth".equals(key)) {
+                  settings.mBytesPerSecond = Long.parseLong(value) * 1024L;
+               }
+               else {
+                  throw new SQLException("Unknown option '" + key + "' in '" + url + "'");
+               }
+            }
+            catch (NumberFormatException e) {
+               throw new SQLException("Invalid value for option '" + key + "' in '" + url + "'", e);
+            }
+            catch (ClassNotFoundException e) {
+               throw new SQLException("Unable to load delegate driver '" + value + "'", e);
+            }
+         }
+         return settings;
+      }
+   }
+
+   /**
+    * Bandwidth shared by all connections to one delegate database. Each
+    * transfer reserves the next free slot on the link, so concurrent
+    * transfers queue behind each other.
+    */
+   private static class Link
+   {
+      private final long mBytesPerSecond;
+      private long mFreeAtNanos = System.nanoTime();
+
+      Link(long bytesPerSecond)
+      {
+         mBytesPerSecond = bytesPerSecond;
+      }
+
+      /**
+       * Reserves the link for the given number of bytes and returns how long
+       * the caller has to wait until its transfer is complete.
+       */
+      synchronized long reserve(long bytes)
+      {
+         long now = System.nanoTime();
+         long cost = bytes * TimeUnit.SECONDS.toNanos(1) / mBytesPerSecond;
+         mFreeAtNanos = Math.max(now, mFreeAtNanos) + cost;
+         return mFreeAtNanos - now;
+      }
+   }
+
+   /**
+    * Simulated connection between the client and the database. Delays are
+    * accumulated so that many sub-millisecond charges (e.g., per-row delays)
+    * add up accurately instead of being rounded by the scheduler.
+    */
+   private static class Channel
+   {
+      private final Settings mSettings;
+      private final Link mLink;
+      private long mPendingNanos;
+
+      Channel(Settings settings, Link link)
+      {
+         mSettings = settings;
+         mLink = link;
+      }
+
+      void roundTrip()
+      {
+         pause(mSettings.mRoundTripNanos);
+      }
+
+      void row()
+      {
+         pause(mSettings.mRowNanos);
+      }
+
+      void transfer(long bytes)
+      {
+         if (mLink != null && bytes > 0) {
+            pause(mLink.reserve(bytes));
+         }
+      }
+
+      int fetchSize()
+      {
+         return mSettings.mFetchSize;
+      }
+
+      synchronized void pause(long nanos)
+      {
+         mPendingNanos += nanos;
+         if (mPendingNanos <= 0) {
+            return;
+         }
+         long start = System.nanoTime();
+         long deadline = start + mPendingNanos;
+         long remaining = mPendingNanos;
+         while (remaining > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+               // The caller is being cancelled, so the outstanding delay is
+               // abandoned rather than charged to a later call. The interrupt
+               // flag is left set for the caller to handle.
+               mPendingNanos = 0;
+               return;
+            }
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+         }
+         mPendingNanos -= System.nanoTime() - start;
+      }
+   }
+
+   /**
+    * Forwards calls to the delegate JDBC object, charging a round-trip for
+    * those that reach the database and wrapping the JDBC objects it returns.
+    */
+   private static class Handler implements InvocationHandler
+   {
+      protected final Object mTarget;
+      protected final Channel mChannel;
+      protected int mFetchSize;
+
+      Handler(Object target, Channel channel, int fetchSize)
+      {
+         mTarget = target;
+         mChannel = channel;
+         mFetchSize = fetchSize;
+      }
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         String name = method.getName();
+         if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+         }
+         if ("hashCode".equals(name) && args == null) {
+            return System.identityHashCode(proxy);
+         }
+         if (("unwrap".equals(name) || "isWrapperFor".equals(name)) && ((Class<?>) args[0]).isInstance(proxy)) {
+            return "unwrap".equals(name) ? proxy : Boolean.TRUE;
+         }
+         before(method, args);
+         Object result;
+         try {
+            result = method.invoke(mTarget, args);
+         }
+         catch (InvocationTargetException e) {
+            throw e.getCause();
+         }
+         if ("setFetchSize".equals(name)) {
+            mFetchSize = (Integer) args[0];
+         }
+         after(method, result);
+
+         Class<?> returnType = method.getReturnType();
+         if ("unwrap".equals(name) && result != null && isWrappable((Class<?>) args[0])) {
+            // Keep charging the cost when unwrapping to another JDBC interface
+            return wrapResult((Class<?>) args[0], result);
+         }
+         if (result != null && isWrappable(returnType)) {
+            return wrapResult(returnType, result);
+         }
+         return result;
+      }
+
+      protected void before(Method method, Object[] args)
+      {
+         String name = method.getName();
+         if (ROUND_TRIP_METHODS.contains(name)) {
+            mChannel.roundTrip();
+         }
+         else if ("prepareStatement".equals(name) || "prepareCall".equals(name)) {
+            mChannel.transfer(sizeOf(args[0]));
+         }
+         else if (mTarget instanceof DatabaseMetaData && ResultSet.class.equals(method.getReturnType())) {
+            mChannel.roundTrip();
+         }
+      }
+
+      protected void after(Method method, Object result)
+      {
+         // NO-OP
+      }
+
+      @SuppressWarnings("unchecked")
+      private <T> Object wrapResult(Class<T> type, Object result)
+      {
+         return wrap(type, (T) result, mChannel, mFetchSize);
+      }
+   }
+
+   /**
+    * Statement handler that charges the bandwidth cost of the SQL text and the
+    * bound parameters. Parameters are charged every time the statement is
+    * executed or added to a batch, and a batch is charged in full when it is
+    * executed.
+    */
+   private static class StatementHandler extends Handler
+   {
+      private final Map<Object, Long> mParameterSizes = new HashMap<Object, Long>();
+      private long mBatchBytes;
+
+      StatementHandler(Object target, Channel channel, int fetchSize)
+      {
+         super(target, channel, fetchSize);
+      }
+
+      @Override
+      protected void before(Method method, Object[] args)
+      {
+         super.before(method, args);
+
+         String name = method.getName();
+         boolean hasSql = args != null && args.length > 0 && args[0] instanceof String;
+         if ("executeBatch".equals(name) || "executeLargeBatch".equals(name)) {
+            mChannel.transfer(mBatchBytes);
+            mBatchBytes = 0;
+         }
+         else if (name.startsWith("execute")) {
+            mChannel.transfer(hasSql ? sizeOf(args[0]) : parameterBytes());
+         }
+         else if ("addBatch".equals(name)) {
+            mBatchBytes += hasSql ? sizeOf(args[0]) : parameterBytes();
+         }
+         else if ("clearBatch".equals(name)) {
+            mBatchBytes = 0;
+         }
+         else if ("clearParameters".equals(name)) {
+            mParameterSizes.clear();
+         }
+         else if (name.startsWith("set") && args != null && args.length >= 2
+               && (args[0] instanceof Integer || args[0] instanceof String)) {
+            // Parameter setters, e.g., setString(index, value) or
+            // setBinaryStream(index, stream, length)
+            mParameterSizes.put(args[0], parameterSize(args));
+         }
+      }
+
+      private long parameterBytes()
+      {
+         long total = 0;
+         for (Long size : mParameterSizes.values()) {
+            total += size;
+         }
+         return total;
+      }
+
+      private static long parameterSize(Object[] args)
+      {
+         Object value = args[1];
+         if (value instanceof InputStream || value instanceof Reader) {
+            return (args.length >= 3 && args[2] instanceof Number) ? ((Number) args[2]).longValue() : 0;
+         }
+         return sizeOf(value);
+      }
+   }
+
+   /**
+    * Result set handler that charges the per-row delay, a round-trip for
+    * every fetch batch and the bandwidth cost of each column value read.
+    */
+   private static class ResultSetHandler extends Handler
+   {
+      private int mRowsInBatch;
+
+      ResultSetHandler(ResultSet target, Channel channel, int fetchSize)
+      {
+         super(target, channel, fetchSize);
+      }
+
+      @Override
+      protected void before(Method method, Object[] args)
+      {
+         // Result sets never start a new statement round-trip themselves
+      }
+
+      @Override
+      protected void after(Method method, Object result)
+      {
+         String name = method.getName();
+         if ("next".equals(name) && Boolean.TRUE.equals(result)) {
+            int fetchSize = (mFetchSize > 0) ? mFetchSize : mChannel.fetchSize();
+            if (fetchSize > 0 && mRowsInBatch == fetchSize) {
+               mChannel.roundTrip();
+               mRowsInBatch = 0;
+            }
+            mRowsInBatch++;
+            mChannel.row();
+         }
+         else if (name.startsWith("get") && method.getParameterTypes().length > 0
+               && !NON_DATA_GETTERS.contains(name)) {
+            mChannel.transfer(sizeOf(result));
+         }
+      }
+   }
+}
@@ -54,33 +54,88 @@ public class ManifestTest
 
    public static TestSuite suite(R2RmlBaseTest.Factory factory) throws Exception
    {
-      final String manifestUrl;
-      final File tempDir;
+      final File tempDir = extractResources();
       
-      URL url = ManifestTest.class.getResource("/res/manifest-evaluation.ttl");
+      TestSuite suite = new TestSuite(factory.getClass().getName())
+      {
+         @Override
+         public void run(TestResult result)
+         {
+            try {
+               super.run(result);
+            }
+            finally {
+               deleteResources(tempDir);
+            }
+         }
+      };
+      addManifests(suite, getManifestUrl(tempDir), factory, new MappingCache());
       
-      if ("jar".equals(url.getProtocol())) {
-         // Extract manifest files to a temporary directory
+      LOG.info("Created aggregated test suite with " + suite.countTestCases() + " test cases.\n");
+      
+      return suite;
+   }
+
+   /**
+    * Extracts the test resources to a temporary directory when they are
+    * packaged in a jar file. Returns the directory, or <code>null</code> if
+    * the resources are already on the file system.
+    */
+   static File extractResources()
+   {
+      URL url = getManifestResource();
+      if (!"jar".equals(url.getProtocol())) {
+         return null;
+      }
+      try {
+         File tempDir = FileUtil.createTempDir("test-resources");
+         
+         JarURLConnection jarconn = (JarURLConnection) url.openConnection();
+         JarFile jar = jarconn.getJarFile();
+         
+         ZipUtil.extract(jar, tempDir);
+         return tempDir;
+      }
+      catch (IOException e) {
+         throw new AssertionError(e);
+      }
+   }
+
+   /**
+    * Returns the location of <code>manifest-evaluation.ttl</code>, inside the
+    * directory given by {@link #extractResources()} if it is not null.
+    */
+   static String getManifestUrl(File tempDir) throws IOException
+   {
+      URL url = getManifestResource();
+      if (tempDir == null) {
+         return url.toString();
+      }
+      JarURLConnection jarconn = (JarURLConnection) url.openConnection();
+      File localFile = new File(tempDir, jarconn.getEntryName());
+      return localFile.toURI().toURL().toString();
+   }
+
+   static void deleteResources(File tempDir)
+   {
+      if (tempDir != null) {
          try {
-            tempDir = FileUtil.createTempDir("test-resources");
-            
-            JarURLConnection jarconn = (JarURLConnection) url.openConnection();
-            JarFile jar = jarconn.getJarFile();
-            
-            ZipUtil.extract(jar, tempDir);
-            
-            File localFile = new File(tempDir, jarconn.getEntryName());
-            manifestUrl = localFile.toURI().toURL().toString();
+            FileUtil.deleteDir(tempDir);
          }
          catch (IOException e) {
-            throw new AssertionError(e);
+            LOG.error("Unable to clean up temporary directory '" + tempDir + "': " + e.getMessage());
          }
       }
-      else {
-         manifestUrl = url.toString();
-         tempDir = null;
-      }
-      
+   }
+
+   /**
+    * Adds to the given suite a test suite for each manifest file listed in
+    * <code>manifest-evaluation.ttl</code>. Mapping documents are parsed
+    * through the given cache.
+    */
+   static void addManifests(TestSuite suite, String manifestUrl, R2RmlBaseTest.Factory factory, MappingCache cache)
+         throws Exception
+   {
       SailRepository repository = new SailRepository(new MemoryStore());
       repository.initialize();
       RepositoryConnection conn = repository.getConnection();
@@ -93,41 +148,16 @@ public class ManifestTest
             + "USING NAMESPACE\n"
             + "  mf = <http://www.w3.org/2001/sw/DataAccess/tests/test-manifest#>";
       
-      TestSuite suite = new TestSuite(factory.getClass().getName())
-      {
-         @Override
-         public void run(TestResult result)
-         {
-            try {
-               super.run(result);
-            }
-            finally {
-               if (tempDir != null) {
-                  try {
-                     FileUtil.deleteDir(tempDir);
-                  }
-                  catch (IOException e) {
-                     LOG.error("Unable to clean up temporary directory '" + tempDir + "': " + e.getMessage());
-                  }
-               }
-            }
-         }
-      };
-      
       TupleQueryResult results = conn.prepareTupleQuery(QueryLanguage.SERQL, query, manifestUrl).evaluate();
       while (results.hasNext()) {
          BindingSet bindingSet = results.next();
          String subManifestFile = bindingSet.getValue("manifestFile").stringValue();
-         suite.addTest(R2RmlBaseTest.suite(subManifestFile, factory));
+         suite.addTest(R2RmlBaseTest.suite(subManifestFile, factory, false, cache));
       }
       
       results.close();
       conn.close();
       repository.shutDown();
-      
-      LOG.info("Created aggregated test suite with " + suite.countTestCases() + " test cases.\n");
-      
-      return suite;
    }
 
    static void addTurtle(RepositoryConnection conn, URL documentUrl, String baseIri, Resource... contexts)
@@ -142,11 +172,7 @@ public class ManifestTest
       InputStream is = documentUrl.openStream();
       try {
          final ValueFactory vf = conn.getRepository().getValueFactory();
-         TurtleParser parser = new TurtleParser();
-         parser.setValueFactory(vf);
-         parser.getParserConfig().addNonFatalError(BasicParserSettings.FAIL_ON_UNKNOWN_DATATYPES);
-         parser.getParserConfig().addNonFatalError(BasicParserSettings.VERIFY_DATATYPE_VALUES);
-         parser.getParserConfig().addNonFatalError(BasicParserSettings.NORMALIZE_DATATYPE_VALUES);
+         TurtleParser parser = createTurtleParser(vf);
          
          RDFInserter inserter = new RDFInserter(conn);
          inserter.enforceContext(contexts);
@@ -180,4 +206,19 @@ public class ManifestTest
          is.close();
       }
    }
+
+   private static URL getManifestResource()
+   {
+      return ManifestTest.class.getResource("/res/manifest-evaluation.ttl");
+   }
+
+   static TurtleParser createTurtleParser(ValueFactory vf)
+   {
+      TurtleParser parser = new TurtleParser();
+      parser.setValueFactory(vf);
+      parser.getParserConfig().addNonFatalError(BasicParserSettings.FAIL_ON_UNKNOWN_DATATYPES);
+      parser.getParserConfig().addNonFatalError(BasicParserSettings.VERIFY_DATATYPE_VALUES);
+      parser.getParserConfig().addNonFatalError(BasicParserSettings.NORMALIZE_DATATYPE_VALUES);
+      return parser;
+   }
 }
@@ -0,0 +1,84 @@
+/*
+ * JR2RmlTestSuite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JR2RmlTestSuite is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JR2RmlTestSuite. If not, see http://www.gnu.org/licenses/.
+ *
+ * Contributors:
+ *     Josef Hardi <josef.hardi@gmail.com> - initial API and implementation
+ */
+package io.github.johardi.r2rml.testsuite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openrdf.model.Model;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.rio.turtle.TurtleParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the parsed R2RML mapping documents of one test run, so that each
+ * document is read and parsed once regardless of how many times (or on how
+ * many backends) its test case is run. Documents are keyed by their URL; a
+ * cache is used with one extraction of the test resources only, so the
+ * models never outlive the files they were parsed from.
+ */
+class MappingCache
+{
+   private final Map<String, Model> mModels = new HashMap<String, Model>();
+
+   private static final Logger LOG = LoggerFactory.getLogger(MappingCache.class);
+
+   /**
+    * Returns the unmodifiable model of the given mapping document, parsing it
+    * on first request.
+    */
+   synchronized Model get(String mappingFile) throws IOException, RDFParseException, RDFHandlerException
+   {
+      Model model = mModels.get(mappingFile);
+      if (model == null) {
+         model = parse(mappingFile);
+         mModels.put(mappingFile, model);
+      }
+      return model;
+   }
+
+   /**
+    * Parses the given mapping document into an unmodifiable model, with the
+    * same Turtle parser settings as the manifest files.
+    */
+   static Model parse(String mappingFile) throws IOException, RDFParseException, RDFHandlerException
+   {
+      LOG.debug("Parsing mapping document {}", mappingFile);
+
+      Model model = new LinkedHashModel();
+      TurtleParser parser = ManifestTest.createTurtleParser(ValueFactoryImpl.getInstance());
+      parser.setRDFHandler(new StatementCollector(model));
+
+      InputStream in = new URL(mappingFile).openStream();
+      try {
+         parser.parse(in, mappingFile);
+      }
+      finally {
+         in.close();
+      }
+      return model.unmodifiable();
+   }
+}
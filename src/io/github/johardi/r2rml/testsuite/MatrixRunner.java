@@ -0,0 +1,398 @@
+/*
+ * JR2RmlTestSuite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JR2RmlTestSuite is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JR2RmlTestSuite. If not, see http://www.gnu.org/licenses/.
+ *
+ * Contributors:
+ *     Josef Hardi <josef.hardi@gmail.com> - initial API and implementation
+ */
+package io.github.johardi.r2rml.testsuite;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestListener;
+import junit.framework.TestResult;
+import junit.framework.TestSuite;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the whole test suite against several database backends in a single
+ * run. Each backend gets its own thread, so backends are exercised
+ * concurrently while the test cases for one backend run one after another
+ * (they share table names). The outcome and per-phase timing of every (test,
+ * backend) pair are collected into a {@link Report}.
+ * <p>
+ * The runner does not report to JUnit. Callers must check
+ * {@link Report#wasSuccessful()} to find out whether the run failed.
+ */
+public class MatrixRunner
+{
+   /**
+    * Creates the test case factory bound to a given backend. The test cases
+    * it creates are expected to return the backend settings from
+    * <code>getJdbcDriver()</code>, <code>getJdbcUrl()</code>,
+    * <code>getDbUser()</code> and <code>getDbPassword()</code>.
+    */
+   public interface Factory
+   {
+      R2RmlBaseTest.Factory createFactory(Backend backend);
+   }
+
+   /**
+    * Connection settings of a database backend.
+    */
+   public static class Backend
+   {
+      private String mName;
+      private String mJdbcDriver;
+      private String mJdbcUrl;
+      private String mDbUser;
+      private String mDbPassword;
+
+      public Backend(String name, String jdbcDriver, String jdbcUrl, String dbUser, String dbPassword)
+      {
+         mName = name;
+         mJdbcDriver = jdbcDriver;
+         mJdbcUrl = jdbcUrl;
+         mDbUser = dbUser;
+         mDbPassword = dbPassword;
+      }
+
+      /**
+       * Returns an embedded in-memory H2 database backend. The name is only
+       * used as a label; the database name is derived from it with any
+       * character that is unsafe in a JDBC URL replaced.
+       */
+      public static Backend h2(String name)
+      {
+         return new Backend(name, "org.h2.Driver", "jdbc:h2:mem:" + toDatabaseName(name), "sa", "");
+      }
+
+      /**
+       * Returns an embedded in-memory HSQLDB database backend. The name is
+       * only used as a label, as in {@link #h2(String)}.
+       */
+      public static Backend hsqldb(String name)
+      {
+         return new Backend(name, "org.hsqldb.jdbc.JDBCDriver", "jdbc:hsqldb:mem:" + toDatabaseName(name), "SA", "");
+      }
+
+      public String getName()
+      {
+         return mName;
+      }
+
+      public String getJdbcDriver()
+      {
+         return mJdbcDriver;
+      }
+
+      public String getJdbcUrl()
+      {
+         return mJdbcUrl;
+      }
+
+      public String getDbUser()
+      {
+         return mDbUser;
+      }
+
+      public String getDbPassword()
+      {
+         return mDbPassword;
+      }
+
+      @Override
+      public String toString()
+      {
+         return mName;
+      }
+
+      private static String toDatabaseName(String name)
+      {
+         return name.replaceAll("[^A-Za-z0-9_]", "_");
+      }
+   }
+
+   /**
+    * The result of running one test case against one backend.
+    */
+   public static class Entry
+   {
+      public enum Outcome { PASSED, FAILED, ERROR }
+
+      private String mTestId;
+      private Backend mBackend;
+      private Outcome mOutcome = Outcome.PASSED;
+      private Map<String, Long> mPhaseTimings = Collections.emptyMap();
+      private Throwable mFailure;
+
+      Entry(String testId, Backend backend)
+      {
+         mTestId = testId;
+         mBackend = backend;
+      }
+
+      public String getTestId()
+      {
+         return mTestId;
+      }
+
+      public Backend getBackend()
+      {
+         return mBackend;
+      }
+
+      public Outcome getOutcome()
+      {
+         return mOutcome;
+      }
+
+      /**
+       * Returns the first failure or error reported for this test case, or
+       * <code>null</code> if it passed.
+       */
+      public Throwable getFailure()
+      {
+         return mFailure;
+      }
+
+      /**
+       * Returns the elapsed time in nanoseconds of each test phase, as given
+       * by {@link R2RmlBaseTest#getPhaseTimings()}.
+       */
+      public Map<String, Long> getPhaseTimings()
+      {
+         return mPhaseTimings;
+      }
+   }
+
+   /**
+    * The combined results of a matrix run.
+    */
+   public static class Report
+   {
+      private static final List<String> PHASES = Arrays.asList(
+            R2RmlBaseTest.PHASE_SETUP,
+            R2RmlBaseTest.PHASE_PROCESSOR,
+            R2RmlBaseTest.PHASE_ACTUAL,
+            R2RmlBaseTest.PHASE_EXPECTED,
+            R2RmlBaseTest.PHASE_COMPARE,
+            R2RmlBaseTest.PHASE_CLEANUP);
+
+      private List<Entry> mEntries = new ArrayList<Entry>();
+
+      public List<Entry> getEntries()
+      {
+         return Collections.unmodifiableList(mEntries);
+      }
+
+      /**
+       * Returns <code>true</code> if every test case passed on every backend.
+       */
+      public boolean wasSuccessful()
+      {
+         for (Entry entry : mEntries) {
+            if (entry.getOutcome() != Entry.Outcome.PASSED) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Returns the report as a text table with one row per (test, backend)
+       * pair, followed by the failure message of each unsuccessful pair.
+       * Phase timings are in milliseconds.
+       */
+      @Override
+      public String toString()
+      {
+         StringBuilder table = new StringBuilder(128 * (mEntries.size() + 1));
+         table.append(String.format("%-16s %-16s %-8s", "Test", "Backend", "Outcome"));
+         for (String phase : PHASES) {
+            table.append(String.format(" %10s", phase));
+         }
+         table.append("\n");
+         for (Entry entry : mEntries) {
+            table.append(String.format("%-16s %-16s %-8s", entry.getTestId(), entry.getBackend(), entry.getOutcome()));
+            for (String phase : PHASES) {
+               Long nanos = entry.getPhaseTimings().get(phase);
+               if (nanos == null) {
+                  table.append(String.format(" %10s", "-"));
+               }
+               else {
+                  table.append(String.format(" %10.2f", nanos / 1000000.0));
+               }
+            }
+            table.append("\n");
+         }
+         for (Entry entry : mEntries) {
+            if (entry.getFailure() != null) {
+               table.append("\n").append(entry.getTestId()).append(" on ").append(entry.getBackend());
+               table.append(" ").append(entry.getOutcome()).append(": ").append(entry.getFailure()).append("\n");
+            }
+         }
+         return table.toString();
+      }
+
+      void addAll(List<Entry> entries)
+      {
+         mEntries.addAll(entries);
+      }
+   }
+
+   /**
+    * Test identifier of the entry that reports a backend whose whole test run
+    * failed, e.g., because the database is unreachable.
+    */
+   public static final String SUITE_ENTRY_ID = "(suite)";
+
+   private static final Logger LOG = LoggerFactory.getLogger(MatrixRunner.class);
+
+   /**
+    * Runs all test cases mentioned in the <code>manifest-evaluation.ttl</code>
+    * file against each of the given backends.
+    *
+    * @param backends
+    *           The database backends to test.
+    * @param factory
+    *           An object factory to create the test case factory of each
+    *           backend.
+    * @return The combined report, with entries grouped by backend in the
+    *         given order. A backend whose run could not complete is
+    *         reported with a single {@link #SUITE_ENTRY_ID} error entry.
+    */
+   public static Report run(List<Backend> backends, final Factory factory) throws Exception
+   {
+      // All backends share one copy of the test resources and their parsed mappings
+      final File tempDir = ManifestTest.extractResources();
+      final String manifestUrl = ManifestTest.getManifestUrl(tempDir);
+      final MappingCache cache = new MappingCache();
+      
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, backends.size()));
+      try {
+         List<Future<List<Entry>>> futures = new ArrayList<Future<List<Entry>>>();
+         for (final Backend backend : backends) {
+            futures.add(executor.submit(new Callable<List<Entry>>()
+            {
+               @Override
+               public List<Entry> call() throws Exception
+               {
+                  return runBackend(backend, factory.createFactory(backend), manifestUrl, cache);
+               }
+            }));
+         }
+         Report report = new Report();
+         for (int i = 0; i < futures.size(); i++) {
+            try {
+               report.addAll(futures.get(i).get());
+            }
+            catch (ExecutionException e) {
+               // Keep the other backends' results and report this backend as a whole
+               Backend backend = backends.get(i);
+               LOG.error("Test suite on {} backend failed: {}", backend, e.getCause());
+               Entry entry = new Entry(SUITE_ENTRY_ID, backend);
+               entry.mOutcome = Entry.Outcome.ERROR;
+               entry.mFailure = e.getCause();
+               report.addAll(Collections.singletonList(entry));
+            }
+         }
+         LOG.info("Test matrix results:\n{}", report);
+         return report;
+      }
+      finally {
+         executor.shutdownNow();
+         if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOG.warn("Some backend test runs did not terminate within one minute");
+         }
+         ManifestTest.deleteResources(tempDir);
+      }
+   }
+
+   /*
+    * Private utility methods
+    */
+
+   private static List<Entry> runBackend(final Backend backend, R2RmlBaseTest.Factory factory,
+         String manifestUrl, MappingCache cache) throws Exception
+   {
+      LOG.info("Running test suite on {} backend", backend);
+
+      final List<Entry> entries = new ArrayList<Entry>();
+      TestSuite suite = new TestSuite(factory.getClass().getName());
+      ManifestTest.addManifests(suite, manifestUrl, factory, cache);
+      TestResult result = new TestResult();
+      result.addListener(new TestListener()
+      {
+         private Entry mCurrent;
+
+         @Override
+         public void startTest(Test test)
+         {
+            mCurrent = new Entry(test.toString(), backend);
+            if (test instanceof R2RmlBaseTest) {
+               mCurrent.mTestId = ((R2RmlBaseTest) test).getTestId();
+            }
+         }
+
+         @Override
+         public void addFailure(Test test, AssertionFailedError e)
+         {
+            setFailure(Entry.Outcome.FAILED, e);
+         }
+
+         @Override
+         public void addError(Test test, Throwable e)
+         {
+            setFailure(Entry.Outcome.ERROR, e);
+         }
+
+         @Override
+         public void endTest(Test test)
+         {
+            if (test instanceof R2RmlBaseTest) {
+               mCurrent.mPhaseTimings = new LinkedHashMap<String, Long>(((R2RmlBaseTest) test).getPhaseTimings());
+            }
+            entries.add(mCurrent);
+         }
+
+         private void setFailure(Entry.Outcome outcome, Throwable e)
+         {
+            // Keep the first problem, e.g., a failed comparison over a later
+            // error in tearDown()
+            if (mCurrent.mFailure == null) {
+               mCurrent.mOutcome = outcome;
+               mCurrent.mFailure = e;
+            }
+         }
+      });
+      suite.run(result);
+      return entries;
+   }
+}
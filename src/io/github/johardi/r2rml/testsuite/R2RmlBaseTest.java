@@ -28,16 +28,18 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.openrdf.model.Model;
 import org.openrdf.model.Statement;
 import org.openrdf.model.Value;
-import org.openrdf.model.util.ModelUtil;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
@@ -47,8 +49,8 @@ import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.helpers.BasicParserSettings;
-import org.openrdf.rio.helpers.StatementCollector;
 import org.openrdf.rio.ntriples.NTriplesParser;
 import org.openrdf.sail.memory.MemoryStore;
 import org.slf4j.Logger;
@@ -70,6 +72,16 @@ public abstract class R2RmlBaseTest extends TestCase
             boolean hasExpectedOutput);   // as specified in rdb2rdftest:hasExpectedOutput
    }
 
+   /*
+    * Test phases measured by {@link getPhaseTimings()}
+    */
+   public static final String PHASE_SETUP = "setup";
+   public static final String PHASE_PROCESSOR = "processor";
+   public static final String PHASE_ACTUAL = "actual";
+   public static final String PHASE_EXPECTED = "expected";
+   public static final String PHASE_COMPARE = "compare";
+   public static final String PHASE_CLEANUP = "cleanup";
+
    private String mTestIri;
    private String mTestId;
    private String mTestTitle;
@@ -77,11 +89,15 @@ public abstract class R2RmlBaseTest extends TestCase
    private String mMappingFile;
    private String mSqlScriptFile;
    private boolean bHasExpectedOutput;
+   private Model mMappingModel;
+   private Exception mMappingError;
 
    private boolean bTestSucceed = true;
 
    private Connection mDbConn;
 
+   private final Map<String, Long> mPhaseTimings = new LinkedHashMap<String, Long>();
+
    private static final Logger LOG = LoggerFactory.getLogger(R2RmlBaseTest.class);
 
    public R2RmlBaseTest(String testIri, String testId, String testTitle, String testOutput,
@@ -146,6 +162,26 @@ public abstract class R2RmlBaseTest extends TestCase
       return mMappingFile;
    }
 
+   /**
+    * Returns the statements of the test mapping document given by
+    * {@link getMappingFile()}, already parsed into an unmodifiable model.
+    * Test cases created by {@link suite(String, Factory)} get the model parsed
+    * while the suite is built, so its cost is not part of any test phase. The
+    * model is shared by all test runs of the same mapping document.
+    */
+   protected Model getMappingModel() throws Exception
+   {
+      if (mMappingError != null) {
+         // The document could not be read or parsed while building the suite
+         throw mMappingError;
+      }
+      if (mMappingModel == null) {
+         // Test case created outside suite()
+         mMappingModel = MappingCache.parse(mMappingFile);
+      }
+      return mMappingModel;
+   }
+
    /**
     * Returns SQL script file for table setup as specified by
     * <code>rdb2rdftest:sqlScriptFile</code> in the manifest file. It includes
@@ -165,11 +201,21 @@ public abstract class R2RmlBaseTest extends TestCase
       return bHasExpectedOutput;
    }
 
+   /**
+    * Returns the elapsed time in nanoseconds of each test phase that has been
+    * run, keyed by the <code>PHASE_*</code> constants in execution order.
+    */
+   public Map<String, Long> getPhaseTimings()
+   {
+      return Collections.unmodifiableMap(mPhaseTimings);
+   }
+
    @Override
    protected void setUp() throws Exception
    {
       LOG.info("Running {} test case", getTestId());
       
+      long start = System.nanoTime();
       java.sql.Statement stmt = null;
       try {
          Class.forName(getJdbcDriver());
@@ -188,6 +234,7 @@ public abstract class R2RmlBaseTest extends TestCase
          if (stmt != null && !stmt.isClosed()) {
             stmt.close();
          }
+         recordPhase(PHASE_SETUP, start);
       }
    }
 
@@ -195,13 +242,30 @@ public abstract class R2RmlBaseTest extends TestCase
    protected void runTest() throws Exception
    {
       try {
+         long start = System.nanoTime();
          runProcessor();
-         Set<Statement> actualResult = getActualGraph();
-         Set<Statement> expectedResult = getExpectedGraph();
-         compareGraphs(actualResult, expectedResult);
+         recordPhase(PHASE_PROCESSOR, start);
+         
+         start = System.nanoTime();
+         CompactGraph.Dictionary dictionary = new CompactGraph.Dictionary();
+         CompactGraph actualResult = new CompactGraph(dictionary);
+         handleActualGraph(actualResult);
+         recordPhase(PHASE_ACTUAL, start);
+         
+         start = System.nanoTime();
+         CompactGraph expectedResult = getExpectedGraph(dictionary);
+         recordPhase(PHASE_EXPECTED, start);
+         
+         start = System.nanoTime();
+         try {
+            compareGraphs(actualResult, expectedResult);
+         }
+         finally {
+            recordPhase(PHASE_COMPARE, start);
+         }
       }
       catch (Exception e) {
-         cleanDatabase();
+         // The database is cleaned up in tearDown(), which also runs after a failure
          bTestSucceed = false;
          fail(e.getMessage());
       }
@@ -210,7 +274,9 @@ public abstract class R2RmlBaseTest extends TestCase
    @Override
    protected void tearDown() throws Exception
    {
+      long start = System.nanoTime();
       cleanDatabase();
+      recordPhase(PHASE_CLEANUP, start);
       printTestStatus();
    }
 
@@ -247,6 +313,24 @@ public abstract class R2RmlBaseTest extends TestCase
     */
    protected abstract Set<Statement> getActualGraph() throws Exception;
 
+   /**
+    * Reports the graph statements from executing the R2RML processor to the
+    * given handler. By default it passes on the statements returned by
+    * {@link getActualGraph()}, so the whole graph is held in memory once
+    * before it is encoded for comparison. Processors that produce their
+    * output as a stream may override this method and write directly to the
+    * handler to avoid that; {@link getActualGraph()} is then not called by
+    * the test.
+    */
+   protected void handleActualGraph(RDFHandler handler) throws Exception
+   {
+      handler.startRDF();
+      for (Statement st : getActualGraph()) {
+         handler.handleStatement(st);
+      }
+      handler.endRDF();
+   }
+
    /**
     * Creates a test suite that contains all test cases mentioned in the
     * <code>manifest.ttl</code> file, including those tests that are not
@@ -277,6 +361,16 @@ public abstract class R2RmlBaseTest extends TestCase
     * @return a test suite.
     */
    public static TestSuite suite(String manifestUrl, Factory factory, boolean onlyReviewedTests) throws Exception
+   {
+      return suite(manifestUrl, factory, onlyReviewedTests, new MappingCache());
+   }
+
+   /**
+    * Creates a test suite as {@link suite(String, Factory, boolean)} does,
+    * parsing the mapping documents through the given cache.
+    */
+   static TestSuite suite(String manifestUrl, Factory factory, boolean onlyReviewedTests, MappingCache cache)
+         throws Exception
    {
       String manifestRootPath = manifestUrl.substring(0, manifestUrl.lastIndexOf("/") + 1);
       
@@ -312,14 +406,23 @@ public abstract class R2RmlBaseTest extends TestCase
       TupleQueryResult results = conn.prepareTupleQuery(QueryLanguage.SERQL, query.toString()).evaluate();
       while (results.hasNext()) {
          BindingSet bindingSet = results.next();
+         String mappingFile = getString(bindingSet.getValue("mappingFile"));
          R2RmlBaseTest testCase = factory.createR2RmlTest(
                getString(bindingSet.getValue("testIri")),
                getString(bindingSet.getValue("testId")),
                getString(bindingSet.getValue("testTitle")),
                manifestRootPath + getString(bindingSet.getValue("testOutput")),
-               manifestRootPath + getString(bindingSet.getValue("mappingFile")),
+               manifestRootPath + mappingFile,
                manifestRootPath + sqlScriptFile,
                Boolean.parseBoolean(getString(bindingSet.getValue("hasExpectedOutput"))));
+         try {
+            testCase.mMappingModel = cache.get(manifestRootPath + mappingFile);
+         }
+         catch (Exception e) {
+            // Only fail the affected test case, when it asks for the model
+            LOG.error("Unable to parse mapping document {}: {}", manifestRootPath + mappingFile, e.getMessage());
+            testCase.mMappingError = e;
+         }
          suite.addTest(testCase);
       }
       results.close();
@@ -359,7 +462,7 @@ public abstract class R2RmlBaseTest extends TestCase
       }
    }
 
-   private final Set<Statement> getExpectedGraph() throws Exception
+   private final CompactGraph getExpectedGraph(CompactGraph.Dictionary dictionary) throws Exception
    {
       NTriplesParser parser = new NTriplesParser();
       parser.getParserConfig().addNonFatalError(BasicParserSettings.FAIL_ON_UNKNOWN_DATATYPES);
@@ -367,8 +470,8 @@ public abstract class R2RmlBaseTest extends TestCase
       parser.getParserConfig().addNonFatalError(BasicParserSettings.NORMALIZE_DATATYPE_VALUES);
       parser.setPreserveBNodeIDs(true);
       
-      Set<Statement> result = new LinkedHashSet<Statement>();
-      parser.setRDFHandler(new StatementCollector(result));
+      CompactGraph result = new CompactGraph(dictionary);
+      parser.setRDFHandler(result);
       
       InputStream in = new URL(mTestOutput).openStream();
       try {
@@ -380,13 +483,13 @@ public abstract class R2RmlBaseTest extends TestCase
       return result;
    }
 
-   private final void compareGraphs(Set<Statement> actual, Set<Statement> expected) throws Exception
+   private final void compareGraphs(CompactGraph actual, CompactGraph expected) throws Exception
    {
-      if (!ModelUtil.equals(expected, actual)) {
+      if (!expected.isEqualTo(actual)) {
          StringBuilder message = new StringBuilder(128);
          message.append("\n=============== ").append(getName()).append(" =======================\n");
          message.append("Expected result: \n");
-         for (Statement st : expected) {
+         for (Statement st : expected.toStatements()) {
             message.append(st.toString());
             message.append("\n");
          }
@@ -395,7 +498,7 @@ public abstract class R2RmlBaseTest extends TestCase
          message.append("========================\n");
          
          message.append("Actual result: \n");
-         for (Statement st : actual) {
+         for (Statement st : actual.toStatements()) {
             message.append(st.toString());
             message.append("\n");
          }
@@ -541,6 +644,11 @@ public abstract class R2RmlBaseTest extends TestCase
       return toReturn;
    }
 
+   private void recordPhase(String phase, long startNanos)
+   {
+      mPhaseTimings.put(phase, System.nanoTime() - startNanos);
+   }
+
    private void printTestStatus()
    {
       if (bTestSucceed) {